@@ -42,6 +42,7 @@ public class QuadView implements ProcessorPlugin, SciJavaPlugin {
    public static final String MENU_NAME = "Quad View";
    public static final String TOOL_TIP_DESCRIPTION =
       "Split images into four channels and decide which to keep";
+   private final QuadViewThumbnails thumbnails_ = new QuadViewThumbnails();
    private Studio studio_;
 
    @Override
@@ -51,12 +52,12 @@ public class QuadView implements ProcessorPlugin, SciJavaPlugin {
 
    @Override
    public ProcessorConfigurator createConfigurator(PropertyMap settings) {
-      return new QuadViewFrame(settings, studio_);
+      return new QuadViewFrame(settings, studio_, thumbnails_);
    }
 
    @Override
    public ProcessorFactory createFactory(PropertyMap settings) {
-      return new QuadViewFactory(studio_, settings);
+      return new QuadViewFactory(studio_, settings, thumbnails_);
    }
    
    @Override
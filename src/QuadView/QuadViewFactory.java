@@ -34,8 +34,11 @@ public class QuadViewFactory implements ProcessorFactory {
    private final boolean keep_green_;
    private final boolean keep_red_;
    private final boolean keep_farRed_;
-   public QuadViewFactory(Studio studio, PropertyMap settings) {
+   private final QuadViewThumbnails thumbnails_;
+   public QuadViewFactory(Studio studio, PropertyMap settings,
+         QuadViewThumbnails thumbnails) {
       studio_ = studio;
+      thumbnails_ = thumbnails;
       keep_blue_ = settings.getBoolean("keep_blue", true);
       keep_green_ = settings.getBoolean("keep_green", true);
       keep_red_ = settings.getBoolean("keep_red", true);
@@ -44,6 +47,7 @@ public class QuadViewFactory implements ProcessorFactory {
 
    @Override
    public Processor createProcessor() {
-      return new QuadViewProcessor(studio_, keep_blue_, keep_green_, keep_red_, keep_farRed_);
+      return new QuadViewProcessor(studio_, keep_blue_, keep_green_, keep_red_, keep_farRed_,
+            thumbnails_);
    }
 }
\ No newline at end of file
@@ -70,6 +70,8 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
    private static final String KEEP_GREEN = "keep_green";
    private static final String KEEP_RED = "keep_red";
    private static final String KEEP_FARRED = "keep_farRed";
+   private static final int PREVIEW_SIZE = 2 * QuadViewThumbnails.THUMBNAIL_SIZE;
+   private static final Color UNSELECTED_OVERLAY = new Color(192, 192, 192, 160);
    /* Old parameters from split-view plugin
    private static final String ORIENTATION = "Orientation";
    private static final String NUM_SPLITS = "numSplits";
@@ -80,6 +82,7 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
 
    private final Studio studio_;
    private final CMMCore core_;
+   private final QuadViewThumbnails thumbnails_;
    private boolean keep_blue_;
    private boolean keep_green_;
    private boolean keep_red_;
@@ -88,6 +91,7 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
    private JCheckBox greenCheckBox_;
    private JCheckBox redCheckBox_;
    private JCheckBox farRedCheckBox_;
+   private Preview preview_;
 
    /* Old variables from split-view
    private String orientation_;
@@ -95,9 +99,11 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
    private JRadioButton lrRadio_;
    private JRadioButton tbRadio_; */
 
-   public QuadViewFrame(PropertyMap settings, Studio studio) {
+   public QuadViewFrame(PropertyMap settings, Studio studio,
+         QuadViewThumbnails thumbnails) {
       studio_ = studio;
       core_ = studio_.getCMMCore();
+      thumbnails_ = thumbnails;
 
       // Get any existing settings
       keep_blue_ = settings.getBoolean("keep_blue",
@@ -143,8 +149,25 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
       return builder.build();
    }
 
+   /**
+    * Settings as last chosen in this window, read from the user profile.
+    */
+   static PropertyMap getSavedSettings(Studio studio) {
+      PropertyMap.Builder builder =  PropertyMaps.builder();
+      builder.putBoolean("keep_blue",
+            studio.profile().getSettings(QuadViewFrame.class).getBoolean(KEEP_BLUE, true));
+      builder.putBoolean("keep_green",
+            studio.profile().getSettings(QuadViewFrame.class).getBoolean(KEEP_GREEN, true));
+      builder.putBoolean("keep_red",
+            studio.profile().getSettings(QuadViewFrame.class).getBoolean(KEEP_RED, true));
+      builder.putBoolean("keep_farRed",
+            studio.profile().getSettings(QuadViewFrame.class).getBoolean(KEEP_FARRED, true));
+      return builder.build();
+   }
+
    @Override
    public void showGUI() {
+      thumbnails_.attach(preview_);
       setVisible(true);
    }
 
@@ -153,6 +176,12 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
       dispose();
    }
 
+   @Override
+   public void dispose() {
+      thumbnails_.detach(preview_);
+      super.dispose();
+   }
+
    /** This method is called from within the constructor to
     * initialize the form.
     */
@@ -204,7 +233,8 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
 
       setLayout(new MigLayout("flowx"));
 
-      add(new Preview(), "align center, wrap");
+      preview_ = new Preview();
+      add(preview_, "align center, wrap");
       add(blueCheckBox_);
       add(redCheckBox_, "wrap");
       add(greenCheckBox_);
@@ -311,49 +341,42 @@ public class QuadViewFrame extends JFrame implements ProcessorConfigurator {
 
       @Override
       public Dimension getMinimumSize() {
-         return new Dimension(50, 50);
+         return new Dimension(PREVIEW_SIZE + 1, PREVIEW_SIZE + 1);
+      }
+
+      @Override
+      public Dimension getPreferredSize() {
+         return getMinimumSize();
       }
 
       @Override
       public void paint(Graphics graphics) {
          Graphics2D g = (Graphics2D) graphics;
-         g.setColor(Color.WHITE);
-         g.fillRect(0, 0, 50, 50);
+         int half = PREVIEW_SIZE / 2;
+         // Same order as QuadViewThumbnails: blue, green, red, far red
+         boolean[] selected = {keep_blue_, keep_green_, keep_red_, keep_farRed_};
+         int[] xOrigins = {0, 0, half, half};
+         int[] yOrigins = {0, half, 0, half};
+         for (int q = 0; q < 4; ++q) {
+            // Show the live thumbnail if we have one, and gray out
+            // un-selected boxes
+            if (thumbnails_.paintThumbnail(g, q, xOrigins[q], yOrigins[q],
+                  half, half)) {
+               if (!selected[q]) {
+                  g.setColor(UNSELECTED_OVERLAY);
+                  g.fillRect(xOrigins[q], yOrigins[q], half, half);
+               }
+            } else {
+               g.setColor(selected[q] ? Color.WHITE : Color.LIGHT_GRAY);
+               g.fillRect(xOrigins[q], yOrigins[q], half, half);
+            }
+         }
          g.setColor(Color.BLACK);
          // Draw a box around the outside
-         int[] xPoints = new int[] {0, 50, 50, 0};
-         int[] yPoints = new int[] {0, 0, 50, 50};
-         g.drawPolygon(xPoints, yPoints, 4);
-         // Fill un-selected boxes gray
-         
-         if (keep_blue_) {
-            g.setColor(Color.WHITE);
-         } else {
-            g.setColor(Color.LIGHT_GRAY);
-         }
-         g.fillRect(0,0,25,25);
-         if (keep_green_) {
-            g.setColor(Color.WHITE);
-         } else {
-            g.setColor(Color.LIGHT_GRAY);
-         }
-         g.fillRect(0,25,25,25);
-         if (keep_red_) {
-            g.setColor(Color.WHITE);
-         } else {
-            g.setColor(Color.LIGHT_GRAY);
-         }
-         g.fillRect(25,0,25,25);
-         if (keep_farRed_) {
-            g.setColor(Color.WHITE);
-         } else {
-            g.setColor(Color.LIGHT_GRAY);
-         }
-         g.fillRect(25,25,25,25);
+         g.drawRect(0, 0, PREVIEW_SIZE, PREVIEW_SIZE);
          // Draw dividers.
-         g.setColor(Color.BLACK);
-         g.drawLine(25, 0, 25, 50);
-         g.drawLine(0, 25, 50, 25);
+         g.drawLine(half, 0, half, PREVIEW_SIZE);
+         g.drawLine(0, half, PREVIEW_SIZE, half);
       }
    }
 }
\ No newline at end of file
@@ -51,11 +51,14 @@ public class QuadViewProcessor implements Processor {
    private final boolean keep_green_;
    private final boolean keep_red_;
    private final boolean keep_farRed_;
+   private final QuadViewThumbnails thumbnails_;
    private final ArrayList<String> channelSuffixes_ = new ArrayList<String>(Arrays.asList(
                                                                 new String[] {"_Blue", "_Green", "_Red", "_FarRed"}));
 
-   public QuadViewProcessor(Studio studio, boolean keep_blue, boolean keep_green, boolean keep_red, boolean keep_farRed) {
+   public QuadViewProcessor(Studio studio, boolean keep_blue, boolean keep_green, boolean keep_red, boolean keep_farRed,
+         QuadViewThumbnails thumbnails) {
       studio_ = studio;
+      thumbnails_ = thumbnails;
       keep_blue_ = keep_blue;
       keep_green_ = keep_green;
       keep_red_ = keep_red;
@@ -132,6 +135,9 @@ public class QuadViewProcessor implements Processor {
 
    @Override
    public void processImage(Image image, ProcessorContext context) {
+      // Cheap hand-off; downsampling for the preview happens elsewhere
+      thumbnails_.offer(image);
+
       ImageProcessor proc = studio_.data().ij().createProcessor(image);
 
       int width = image.getWidth();
@@ -0,0 +1,632 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          QuadViewSoakTest.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+
+
+package QuadView;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.swing.JPanel;
+
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+
+/**
+ * Sustained-throughput soak test for the QuadView pipeline.
+ *
+ * Synthetic 16-bit frames are fed at a fixed rate, like a free-running
+ * camera, through a processor obtained from QuadViewFactory; the output
+ * images go to a stand-in ProcessorContext that only counts them. The
+ * camera is modelled with a buffer of bufferFrames frames: frames that
+ * arrive while the previous one is still being processed wait in the
+ * buffer, and only when more than bufferFrames are waiting are the oldest
+ * ones dropped. With bufferFrames = 1, any frame later than one interval
+ * is dropped.
+ *
+ * Latency is measured from the frame's scheduled arrival to the return of
+ * processImage(), so GC stalls show up in the upper percentiles. Latencies
+ * go into a fixed-size histogram so that the harness itself does not
+ * allocate per frame. GC pauses and the heap high-water mark come from the
+ * collectors' notifications, see GcRecorder.
+ *
+ * Run it from the Script Panel, for example:
+ * <pre>
+ * r = QuadView.QuadViewSoakTest.run(mm, 2048, 2048, 100.0, 3600, 16, true);
+ * print(r);
+ * print(r.meetsTarget());
+ * </pre>
+ */
+public class QuadViewSoakTest {
+   private static final int SYNTHETIC_FRAMES = 8;
+   private static final long SPIN_NS = TimeUnit.MICROSECONDS.toNanos(200);
+   private static final long GC_NOTIFICATION_TIMEOUT_MS = 2000;
+
+   /**
+    * Soak the pipeline with the channel selection saved by QuadViewFrame.
+    */
+   public static Report run(Studio studio, int width, int height,
+         double targetFps, long durationSeconds, int bufferFrames,
+         boolean withPreview) {
+      return run(studio, QuadViewFrame.getSavedSettings(studio), width,
+            height, targetFps, durationSeconds, bufferFrames, withPreview);
+   }
+
+   /**
+    * Feed frames for the given duration and return the results. The
+    * summary is also written to the CoreLog.
+    *
+    * @param settings processor settings, as passed to QuadViewFactory
+    * @param bufferFrames number of frames the simulated camera can hold
+    *                     while the pipeline is busy; at least 1
+    * @param withPreview attach a dummy preview so that thumbnail rendering
+    *                    runs alongside the pipeline, as with QuadViewFrame open
+    */
+   public static Report run(Studio studio, PropertyMap settings,
+         int width, int height, double targetFps, long durationSeconds,
+         int bufferFrames, boolean withPreview) {
+      if (width < 2 || height < 2 || targetFps <= 0 || durationSeconds <= 0
+            || bufferFrames < 1) {
+         throw new IllegalArgumentException("Invalid soak test parameters");
+      }
+      QuadViewThumbnails thumbnails = new QuadViewThumbnails();
+      JPanel dummyPreview = new JPanel();
+      if (withPreview) {
+         thumbnails.attach(dummyPreview);
+      }
+      Processor processor = new QuadViewFactory(studio, settings, thumbnails)
+            .createProcessor();
+      CountingContext context = new CountingContext();
+      Image[] frames = createFrames(studio, width, height);
+      LatencyHistogram latencies = new LatencyHistogram();
+      GcRecorder gcs = new GcRecorder();
+
+      long intervalNs = (long) (TimeUnit.SECONDS.toNanos(1) / targetFps);
+      long durationNs = TimeUnit.SECONDS.toNanos(durationSeconds);
+
+      // Settle the heap so the start and end figures are comparable
+      boolean explicitGcWorks = fullGc();
+      long heapAfterGcStart = heapUsed();
+
+      long processed = 0;
+      long dropped = 0;
+      gcs.start();
+      long start = System.nanoTime();
+      long slot = 0;
+      long end = start;
+      long heapAtEnd = 0;
+      try {
+         while (true) {
+            long scheduled = start + slot * intervalNs;
+            if (scheduled - start >= durationNs) {
+               break;
+            }
+            waitUntil(scheduled);
+            long now = System.nanoTime();
+            // Frames that have arrived but not been processed, this one included
+            long backlog = (now - scheduled) / intervalNs + 1;
+            if (backlog > bufferFrames) {
+               // The camera buffer overflowed; the oldest frames are lost
+               long missed = backlog - bufferFrames;
+               dropped += missed;
+               slot += missed;
+               continue;
+            }
+            processor.processImage(frames[(int) (slot % frames.length)],
+                  context);
+            end = System.nanoTime();
+            latencies.record(end - scheduled);
+            processed++;
+            slot++;
+         }
+         gcs.end();
+         heapAtEnd = heapUsed();
+         // The final collection also flushes the run's GC notifications
+         explicitGcWorks &= fullGc();
+         gcs.awaitNotifications(GC_NOTIFICATION_TIMEOUT_MS);
+      } finally {
+         gcs.stop();
+         if (withPreview) {
+            thumbnails.detach(dummyPreview);
+         }
+      }
+
+      Report report = new Report();
+      report.targetFps_ = targetFps;
+      report.frameIntervalMs_ = intervalNs / 1e6;
+      report.bufferFrames_ = bufferFrames;
+      report.elapsedSeconds_ = (end - start) / 1e9;
+      report.framesProcessed_ = processed;
+      report.framesDropped_ = dropped;
+      report.imagesOutput_ = context.count_;
+      report.achievedFps_ = processed / Math.max(report.elapsedSeconds_, 1e-9);
+      report.latencyP50Ms_ = latencies.percentile(50) / 1e6;
+      report.latencyP99Ms_ = latencies.percentile(99) / 1e6;
+      report.latencyP999Ms_ = latencies.percentile(99.9) / 1e6;
+      report.latencyMaxMs_ = latencies.max() / 1e6;
+      report.gcPausesAvailable_ = gcs.isPauseAccountingSupported();
+      report.gcPauseCount_ = gcs.pauseCount();
+      report.gcPauseTotalMs_ = gcs.pauseTotalMs();
+      report.gcPauseMaxMs_ = gcs.pauseMaxMs();
+      // Covers runs without any collection, too
+      report.heapPeakBeforeGcBytes_ = Math.max(gcs.heapPeakBeforeGc(),
+            heapAtEnd);
+      report.heapGrowthAvailable_ = explicitGcWorks;
+      report.heapGrowthBytes_ = heapUsed() - heapAfterGcStart;
+      studio.logs().logMessage("QuadView soak test: " + report);
+      return report;
+   }
+
+   private static Image[] createFrames(Studio studio, int width, int height) {
+      Random random = new Random(0);
+      Metadata metadata = studio.data().getMetadataBuilder().build();
+      Image[] frames = new Image[SYNTHETIC_FRAMES];
+      for (int f = 0; f < frames.length; ++f) {
+         // Noise on a different offset per quadrant
+         short[] pixels = new short[width * height];
+         for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+               int offset = (x < width / 2 ? 0 : 2000)
+                     + (y < height / 2 ? 0 : 1000);
+               pixels[y * width + x] =
+                     (short) (100 + offset + random.nextInt(500));
+            }
+         }
+         Coords coords = studio.data().coordsBuilder().time(f).channel(0)
+               .build();
+         frames[f] = studio.data().createImage(pixels, width, height, 2, 1,
+               coords, metadata);
+      }
+      return frames;
+   }
+
+   private static void waitUntil(long deadline) {
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0) {
+         if (remaining > SPIN_NS) {
+            LockSupport.parkNanos(remaining - SPIN_NS);
+         } else {
+            Thread.yield();
+         }
+      }
+   }
+
+   /**
+    * Request a full collection.
+    *
+    * @return false if no collection ran, e.g. under -XX:+DisableExplicitGC
+    */
+   private static boolean fullGc() {
+      long before = gcCount();
+      System.gc();
+      return gcCount() > before;
+   }
+
+   private static long gcCount() {
+      long count = 0;
+      for (GarbageCollectorMXBean gc :
+            ManagementFactory.getGarbageCollectorMXBeans()) {
+         count += Math.max(gc.getCollectionCount(), 0);
+      }
+      return count;
+   }
+
+   private static long heapUsed() {
+      return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+   }
+
+   /**
+    * Listens to the collectors' notifications for the duration of a run.
+    *
+    * The heap high-water mark is the largest heap use seen just before any
+    * collection. Stop-the-world pauses are only added up for the collector
+    * beans below, which report one pause per notification; beans for
+    * concurrent cycles are known but not counted. With any other bean
+    * present (e.g. CMS, or ZGC before JDK 17) pause totals are reported as
+    * unavailable.
+    */
+   private static class GcRecorder implements NotificationListener {
+      private static final HashSet<String> PAUSE_COLLECTORS =
+            new HashSet<String>(Arrays.asList(
+                  "Copy", "MarkSweepCompact",              // Serial
+                  "PS Scavenge", "PS MarkSweep",            // Parallel
+                  "G1 Young Generation", "G1 Old Generation",
+                  "G1 Concurrent GC",                       // Remark, Cleanup
+                  "ZGC Pauses", "ZGC Minor Pauses", "ZGC Major Pauses",
+                  "Shenandoah Pauses"));
+      private static final HashSet<String> CYCLE_COLLECTORS =
+            new HashSet<String>(Arrays.asList(
+                  "ZGC Cycles", "ZGC Minor Cycles", "ZGC Major Cycles",
+                  "Shenandoah Cycles"));
+
+      private final List<NotificationEmitter> emitters_ =
+            new ArrayList<NotificationEmitter>();
+      private final HashSet<String> heapPools_ = new HashSet<String>();
+      private boolean supported_ = true;
+      private long startMs_;
+      private long endMs_ = Long.MAX_VALUE;
+      private boolean sawLaterGc_ = false;
+      private long pauseCount_ = 0;
+      private long pauseTotalMs_ = 0;
+      private long pauseMaxMs_ = 0;
+      private long heapPeakBeforeGc_ = 0;
+
+      void start() {
+         for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+               heapPools_.add(pool.getName());
+            }
+         }
+         for (GarbageCollectorMXBean gc :
+               ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!PAUSE_COLLECTORS.contains(gc.getName())
+                  && !CYCLE_COLLECTORS.contains(gc.getName())) {
+               supported_ = false;
+            }
+            if (gc instanceof NotificationEmitter) {
+               NotificationEmitter emitter = (NotificationEmitter) gc;
+               emitter.addNotificationListener(this, null, null);
+               emitters_.add(emitter);
+            } else {
+               supported_ = false;
+            }
+         }
+         synchronized (this) {
+            startMs_ = uptimeMs();
+         }
+      }
+
+      /** Collections that start after this are not part of the run. */
+      synchronized void end() {
+         endMs_ = uptimeMs();
+      }
+
+      /**
+       * Notifications are delivered in order on a service thread, so once
+       * one for a collection after end() has arrived, all of the run's
+       * have too. Gives up after the timeout, e.g. if no collection was
+       * triggered after end().
+       */
+      synchronized void awaitNotifications(long timeoutMs) {
+         long deadline = System.currentTimeMillis() + timeoutMs;
+         long remaining;
+         while (!sawLaterGc_
+               && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+               wait(remaining);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               return;
+            }
+         }
+      }
+
+      void stop() {
+         for (NotificationEmitter emitter : emitters_) {
+            try {
+               emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+               // Already gone
+            }
+         }
+      }
+
+      @Override
+      public synchronized void handleNotification(Notification notification,
+            Object handback) {
+         if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+               .equals(notification.getType())) {
+            return;
+         }
+         GarbageCollectionNotificationInfo info =
+               GarbageCollectionNotificationInfo.from(
+                     (CompositeData) notification.getUserData());
+         long gcStartMs = info.getGcInfo().getStartTime();
+         if (gcStartMs > endMs_) {
+            sawLaterGc_ = true;
+            notifyAll();
+            return;
+         }
+         if (gcStartMs < startMs_) {
+            return;
+         }
+         long heapBeforeGc = 0;
+         for (Map.Entry<String, MemoryUsage> pool :
+               info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+            if (heapPools_.contains(pool.getKey())) {
+               heapBeforeGc += pool.getValue().getUsed();
+            }
+         }
+         heapPeakBeforeGc_ = Math.max(heapPeakBeforeGc_, heapBeforeGc);
+         if (PAUSE_COLLECTORS.contains(info.getGcName())) {
+            long duration = info.getGcInfo().getDuration();
+            pauseCount_++;
+            pauseTotalMs_ += duration;
+            pauseMaxMs_ = Math.max(pauseMaxMs_, duration);
+         }
+      }
+
+      boolean isPauseAccountingSupported() {
+         return supported_ && !emitters_.isEmpty();
+      }
+
+      synchronized long pauseCount() {
+         return pauseCount_;
+      }
+
+      synchronized long pauseTotalMs() {
+         return pauseTotalMs_;
+      }
+
+      synchronized long pauseMaxMs() {
+         return pauseMaxMs_;
+      }
+
+      synchronized long heapPeakBeforeGc() {
+         return heapPeakBeforeGc_;
+      }
+
+      private static long uptimeMs() {
+         return ManagementFactory.getRuntimeMXBean().getUptime();
+      }
+   }
+
+   /**
+    * Stand-in for the pipeline's context; discards output images.
+    */
+   private static class CountingContext implements ProcessorContext {
+      private long count_ = 0;
+
+      @Override
+      public void outputImage(Image image) {
+         count_++;
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return null;
+      }
+   }
+
+   /**
+    * Log-linear histogram of nanosecond values: 64 linear sub-buckets per
+    * power of two, i.e. better than 2% resolution up to about 68 s.
+    */
+   private static class LatencyHistogram {
+      private static final int SUB_BITS = 6;
+      private static final int SUB_BUCKETS = 1 << SUB_BITS;
+      private static final int MAX_BITS = 36;
+      private final long[] counts_ = new long[(MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS];
+      private long total_ = 0;
+      private long max_ = 0;
+
+      void record(long value) {
+         value = Math.max(value, 0);
+         max_ = Math.max(max_, value);
+         counts_[Math.min(indexOf(value), counts_.length - 1)]++;
+         total_++;
+      }
+
+      long max() {
+         return max_;
+      }
+
+      /** Upper bound of the bucket holding the given percentile. */
+      long percentile(double percent) {
+         if (total_ == 0) {
+            return 0;
+         }
+         long rank = (long) Math.ceil(total_ * percent / 100.0);
+         long seen = 0;
+         for (int i = 0; i < counts_.length; ++i) {
+            seen += counts_[i];
+            if (seen >= Math.max(rank, 1)) {
+               return Math.min(upperBound(i), max_);
+            }
+         }
+         return max_;
+      }
+
+      private static int indexOf(long value) {
+         int magnitude = 64 - Long.numberOfLeadingZeros(value);
+         if (magnitude <= SUB_BITS + 1) {
+            return (int) value;
+         }
+         int shift = magnitude - SUB_BITS - 1;
+         return (shift + 1) * SUB_BUCKETS
+               + (int) ((value >>> shift) - SUB_BUCKETS);
+      }
+
+      private static long upperBound(int index) {
+         if (index < 2 * SUB_BUCKETS) {
+            return index;
+         }
+         int shift = index / SUB_BUCKETS - 1;
+         long base = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+         return base + (1L << shift) - 1;
+      }
+   }
+
+   /**
+    * Results of one soak run.
+    */
+   public static class Report {
+      /** Default allowed growth of the live heap over a run. */
+      public static final long DEFAULT_MAX_HEAP_GROWTH_BYTES = 16L * 1024 * 1024;
+
+      private double targetFps_;
+      private double frameIntervalMs_;
+      private int bufferFrames_;
+      private double elapsedSeconds_;
+      private long framesProcessed_;
+      private long framesDropped_;
+      private long imagesOutput_;
+      private double achievedFps_;
+      private double latencyP50Ms_;
+      private double latencyP99Ms_;
+      private double latencyP999Ms_;
+      private double latencyMaxMs_;
+      private boolean gcPausesAvailable_;
+      private long gcPauseCount_;
+      private long gcPauseTotalMs_;
+      private long gcPauseMaxMs_;
+      private long heapPeakBeforeGcBytes_;
+      private boolean heapGrowthAvailable_;
+      private long heapGrowthBytes_;
+
+      public double getAchievedFps() {
+         return achievedFps_;
+      }
+
+      public long getFramesDropped() {
+         return framesDropped_;
+      }
+
+      public double getLatencyP50Ms() {
+         return latencyP50Ms_;
+      }
+
+      public double getLatencyP99Ms() {
+         return latencyP99Ms_;
+      }
+
+      public double getLatencyP999Ms() {
+         return latencyP999Ms_;
+      }
+
+      public double getMaxLatencyMs() {
+         return latencyMaxMs_;
+      }
+
+      /** Number of stop-the-world GC pauses during the run. */
+      public long getGcPauseCount() {
+         return gcPauseCount_;
+      }
+
+      /** Total stop-the-world GC pause time, excluding concurrent work. */
+      public long getGcPauseTotalMs() {
+         return gcPauseTotalMs_;
+      }
+
+      public long getGcPauseMaxMs() {
+         return gcPauseMaxMs_;
+      }
+
+      /**
+       * False if the JVM's collectors are not ones whose stop-the-world
+       * pauses can be told apart; the pause figures are then meaningless.
+       */
+      public boolean isGcPausesAvailable() {
+         return gcPausesAvailable_;
+      }
+
+      /**
+       * Heap high-water mark: the largest total heap use right before a
+       * collection during the run.
+       */
+      public long getHeapPeakBeforeGcBytes() {
+         return heapPeakBeforeGcBytes_;
+      }
+
+      /**
+       * False if System.gc() did not trigger a collection, in which case
+       * getHeapGrowthBytes() is meaningless.
+       */
+      public boolean isHeapGrowthAvailable() {
+         return heapGrowthAvailable_;
+      }
+
+      /**
+       * Difference in live heap between the start and end of the run, each
+       * measured after a full GC. Should stay near zero.
+       */
+      public long getHeapGrowthBytes() {
+         return heapGrowthBytes_;
+      }
+
+      /**
+       * Verdict with the default thresholds: neither the p99.9 latency nor
+       * the longest GC pause may exceed one frame interval, and the live
+       * heap may grow by at most DEFAULT_MAX_HEAP_GROWTH_BYTES.
+       */
+      public boolean meetsTarget() {
+         return meetsTarget(frameIntervalMs_, frameIntervalMs_,
+               DEFAULT_MAX_HEAP_GROWTH_BYTES);
+      }
+
+      /**
+       * True if no frame was dropped, the p99.9 latency is at most
+       * maxP999LatencyMs, no stop-the-world GC pause was longer than
+       * maxGcPauseMs and the live heap grew by at most maxHeapGrowthBytes.
+       * Fails if GC pauses or heap growth could not be measured.
+       */
+      public boolean meetsTarget(double maxP999LatencyMs, double maxGcPauseMs,
+            long maxHeapGrowthBytes) {
+         return framesProcessed_ > 0 && framesDropped_ == 0
+               && latencyP999Ms_ <= maxP999LatencyMs
+               && gcPausesAvailable_
+               && gcPauseMaxMs_ <= maxGcPauseMs
+               && heapGrowthAvailable_
+               && heapGrowthBytes_ <= maxHeapGrowthBytes;
+      }
+
+      @Override
+      public String toString() {
+         String pauses = gcPausesAvailable_
+               ? String.format("%d STW pauses, %d ms total, %d ms max",
+                     gcPauseCount_, gcPauseTotalMs_, gcPauseMaxMs_)
+               : "STW pauses n/a (unsupported collector)";
+         String growth = heapGrowthAvailable_
+               ? String.format("%d kB", heapGrowthBytes_ / 1024)
+               : "n/a (explicit GC disabled)";
+         return String.format("target %.1f fps, achieved %.1f fps over %.0f s "
+               + "(%d frames, %d dropped with %d-frame buffer, "
+               + "%d images out); latency ms "
+               + "p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f; "
+               + "GC %s; heap peak before GC %d MB, live heap growth %s",
+               targetFps_, achievedFps_, elapsedSeconds_,
+               framesProcessed_, framesDropped_, bufferFrames_, imagesOutput_,
+               latencyP50Ms_, latencyP99Ms_, latencyP999Ms_, latencyMaxMs_,
+               pauses, heapPeakBeforeGcBytes_ / (1024 * 1024), growth);
+      }
+   }
+}
@@ -0,0 +1,243 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          QuadViewThumbnails.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+
+
+package QuadView;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JComponent;
+
+import org.micromanager.data.Image;
+
+/**
+ * Renders small live thumbnails of the four quadrants for the preview in
+ * QuadViewFrame.
+ *
+ * QuadViewProcessor hands every frame to offer(), which only checks a few
+ * flags and returns; at most MAX_RATE_HZ frames per second are downsampled,
+ * on a background thread, into BufferedImages that are reused for the
+ * lifetime of this object. Nothing is done while no preview is attached.
+ *
+ * Quadrant indices follow the QuadViewProcessor layout: 0 = blue (top left),
+ * 1 = green (bottom left), 2 = red (top right), 3 = far red (bottom right).
+ */
+public class QuadViewThumbnails {
+   public static final int THUMBNAIL_SIZE = 64;
+   private static final int MAX_RATE_HZ = 5;
+   private static final long MIN_INTERVAL_NS =
+         TimeUnit.SECONDS.toNanos(1) / MAX_RATE_HZ;
+   // Autoscale range, as percentiles of the sampled pixels
+   private static final double LOW_PERCENTILE = 1.0;
+   private static final double HIGH_PERCENTILE = 99.0;
+
+   private final BufferedImage[] thumbnails_ = new BufferedImage[4];
+   private final int[] samples_ = new int[4 * THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+   private final int[] histogram_ = new int[1 << 16];
+   private final CopyOnWriteArrayList<JComponent> targets_ =
+         new CopyOnWriteArrayList<JComponent>();
+   private final AtomicBoolean busy_ = new AtomicBoolean(false);
+   private volatile long lastRenderNs_ = 0;
+   private volatile boolean hasThumbnails_ = false;
+   private ExecutorService executor_;
+
+   public QuadViewThumbnails() {
+      for (int q = 0; q < thumbnails_.length; ++q) {
+         thumbnails_[q] = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE,
+               BufferedImage.TYPE_BYTE_GRAY);
+      }
+   }
+
+   /**
+    * Register a component to be repainted whenever new thumbnails are ready.
+    */
+   public synchronized void attach(JComponent target) {
+      targets_.addIfAbsent(target);
+      if (executor_ == null) {
+         executor_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "QuadView thumbnail renderer");
+               t.setDaemon(true);
+               t.setPriority(Thread.MIN_PRIORITY);
+               return t;
+            }
+         });
+      }
+   }
+
+   public synchronized void detach(JComponent target) {
+      targets_.remove(target);
+      if (targets_.isEmpty()) {
+         // Whatever we have is stale by the time a preview is attached again
+         hasThumbnails_ = false;
+         if (executor_ != null) {
+            executor_.shutdown();
+            executor_ = null;
+         }
+      }
+   }
+
+   /**
+    * Called from the acquisition path for every input image. Returns
+    * immediately; the image is only rendered if a preview is attached, the
+    * previous render has finished and the rate limit allows it.
+    */
+   public void offer(final Image image) {
+      if (targets_.isEmpty()) {
+         return;
+      }
+      long now = System.nanoTime();
+      if (now - lastRenderNs_ < MIN_INTERVAL_NS) {
+         return;
+      }
+      if (!busy_.compareAndSet(false, true)) {
+         return;
+      }
+      lastRenderNs_ = now;
+      synchronized (this) {
+         if (executor_ == null) {
+            busy_.set(false);
+            return;
+         }
+         executor_.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  render(image);
+               } finally {
+                  busy_.set(false);
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Draw the thumbnail for one quadrant, scaled to the given rectangle.
+    * Must be called on the EDT.
+    *
+    * @return false if no frame has been rendered yet
+    */
+   public boolean paintThumbnail(Graphics2D g, int quadrant,
+         int x, int y, int width, int height) {
+      if (!hasThumbnails_) {
+         return false;
+      }
+      synchronized (thumbnails_) {
+         g.drawImage(thumbnails_[quadrant], x, y, width, height, null);
+      }
+      return true;
+   }
+
+   private void render(Image image) {
+      int bytesPerPixel = image.getBytesPerPixel();
+      if (image.getNumComponents() != 1
+            || (bytesPerPixel != 1 && bytesPerPixel != 2)) {
+         // Multi-component (RGB) images are not previewed.
+         return;
+      }
+      Object pixels = image.getRawPixels();
+      int width = image.getWidth();
+      int qWidth = width / 2;
+      int qHeight = image.getHeight() / 2;
+      if (qWidth == 0 || qHeight == 0) {
+         return;
+      }
+      int[] xOrigins = {0, 0, qWidth, qWidth};
+      int[] yOrigins = {0, qHeight, 0, qHeight};
+
+      // Nearest-neighbour sampling of all quadrants into one histogram, so
+      // that a shared autoscale range keeps a quadrant without signal dark
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      int i = 0;
+      for (int q = 0; q < thumbnails_.length; ++q) {
+         for (int ty = 0; ty < THUMBNAIL_SIZE; ++ty) {
+            int row = (yOrigins[q] + ty * qHeight / THUMBNAIL_SIZE) * width;
+            for (int tx = 0; tx < THUMBNAIL_SIZE; ++tx) {
+               int index = row + xOrigins[q] + tx * qWidth / THUMBNAIL_SIZE;
+               int value = bytesPerPixel == 1
+                     ? ((byte[]) pixels)[index] & 0xff
+                     : ((short[]) pixels)[index] & 0xffff;
+               samples_[i++] = value;
+               histogram_[value]++;
+               if (value < min) {
+                  min = value;
+               }
+               if (value > max) {
+                  max = value;
+               }
+            }
+         }
+      }
+      // Clip to percentiles so a hot pixel doesn't squash everything else
+      int low = percentile(LOW_PERCENTILE, min, max);
+      int high = percentile(HIGH_PERCENTILE, min, max);
+      for (int v = min; v <= max; ++v) {
+         histogram_[v] = 0;
+      }
+      int range = Math.max(high - low, 1);
+      synchronized (thumbnails_) {
+         i = 0;
+         for (int q = 0; q < thumbnails_.length; ++q) {
+            byte[] dest = ((DataBufferByte) thumbnails_[q].getRaster()
+                  .getDataBuffer()).getData();
+            for (int j = 0; j < dest.length; ++j) {
+               int value = Math.min(Math.max(samples_[i++], low), high);
+               dest[j] = (byte) ((value - low) * 255 / range);
+            }
+         }
+      }
+      synchronized (this) {
+         if (targets_.isEmpty()) {
+            // Detached while rendering; don't resurrect stale thumbnails
+            return;
+         }
+         hasThumbnails_ = true;
+      }
+      // repaint() is safe to call from any thread
+      for (JComponent target : targets_) {
+         target.repaint();
+      }
+   }
+
+   /**
+    * Smallest sampled value at or below which the given percentage of
+    * samples lie. Only histogram_ entries in [min, max] are populated.
+    */
+   private int percentile(double percent, int min, int max) {
+      long rank = Math.max((long) Math.ceil(samples_.length * percent / 100.0), 1);
+      long seen = 0;
+      for (int v = min; v <= max; ++v) {
+         seen += histogram_[v];
+         if (seen >= rank) {
+            return v;
+         }
+      }
+      return max;
+   }
+}